@@ -13,14 +13,32 @@ import org.objectweb.asm.*;  //classes for generating bytecode
 import compiler.utils.*;
 import java.util.*;
 
+//ANTLR packages
+import org.antlr.v4.runtime.tree.*;
+
 
 public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
 
     private ClassWriter cw;  //ClassWriter for a KnightCode class
-	private MethodVisitor mainVisitor; //global MethodVisitor
+	private MethodVisitor mainVisitor; //global MethodVisitor for the run method which holds the code of the program
 	private String programName; //name of the output file
     private Map<String, Variable> symbolTable; //map that will store the name of the variable along with its corresponding Variable object which will contain some of its attributes
     private int memoryPointer; //Memory pointer to the top of the stack
+    private int scanLocation = -1; //Memory location of the Scanner shared by every READ, -1 if the program has no READ
+    private int stepBudget; //number of steps the PartialEvaluator may evaluate at compile time
+    private int outputBudget; //number of characters of output the PartialEvaluator may buffer
+
+    public static final String RUN_DESCRIPTOR = "(Ljava/io/InputStream;Ljava/io/PrintStream;)V"; //descriptor of the run method: run(InputStream in, PrintStream out)
+    private static final int IN_LOCATION = 0; //Memory location of the input parameter of run
+    private static final int OUT_LOCATION = 1; //Memory location of the output parameter of run
+    private static final int FIRST_VARIABLE_LOCATION = 2; //Memory location of the first variable, right after the parameters of run
+    private static final int MIN_SWITCH_CASES = 3; //fewest different numbers in a chain of IFs before it is compiled as a switch
+    private static final int MAX_INLINE_SIZE = 16384; //estimated bytes of bytecode an expr may take before parts of it are moved into helper methods, well under the JVM's limit of 65535 bytes per method
+    private static final int OUTLINE_CALL_SIZE = 5; //bytes of bytecode a call to a helper method takes
+    private static final String HELPER_DESCRIPTOR = "([I)I"; //descriptor of a helper method, which takes the values of the variables of the expression and returns an int
+    private List<Outline> outlines = new ArrayList<>(); //helper methods that still have to be written
+    private int frameLocation = -1; //Memory location in run of the array passed to helper methods, -1 until an expression needs one
+    private Outline writing; //helper method being written, null while writing run
 
 
     /**
@@ -28,10 +46,24 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
      * @param programName the name of the program
      */
     public MyBaseVisitor(String programName){
-        this.programName = programName;
+        this(programName, PartialEvaluator.DEFAULT_STEP_BUDGET, PartialEvaluator.DEFAULT_OUTPUT_BUDGET);
         
     }//end constructor
 
+    /**
+     * Constructor for MyBaseVisitor with the budgets for evaluating the program at compile time
+     * @param programName the name of the program
+     * @param stepBudget the number of steps that may be evaluated at compile time, 0 turns compile time evaluation off
+     * @param outputBudget the number of characters of output that may be buffered at compile time
+     */
+    public MyBaseVisitor(String programName, int stepBudget, int outputBudget){
+        this.programName = programName;
+        this.stepBudget = stepBudget;
+        this.outputBudget = outputBudget;
+        this.memoryPointer = FIRST_VARIABLE_LOCATION;
+
+    }//end constructor
+
     /**
      * Method that removes the first and last characters of a string (Will be used to remove quotes around Strings when printing)
      * @param s the string that will be modified
@@ -75,20 +107,12 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
     }//end beginClass
 
     /**
-     * Ends the main method and writes the ClassWriter data into the outputFile
+     * Ends the run method, creates the main method and writes the ClassWriter data into the outputFile
      */
     public void closeClass(){
 
-            //Ends the mainVisitor
-            mainVisitor.visitInsn(Opcodes.RETURN);
-            mainVisitor.visitMaxs(0, 0);
-            mainVisitor.visitEnd();
-
-            //Ends the ClassWriter
-            cw.visitEnd();
-
                 //Creates an array of type byte that contains the contents of the ClassWriter
-                byte[] b = cw.toByteArray();
+                byte[] b = finishClass();
 
                 //Writes the byte array to the output file
                 Utilities.writeFile(b,this.programName+".class");
@@ -98,6 +122,41 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
         
     }//end closeClass
 
+    /**
+     * Ends the run method, creates the main method and returns the finished class without writing it anywhere
+     * @return the bytes of the class file
+     */
+    public byte[] finishClass(){
+
+            //Ends the mainVisitor
+            mainVisitor.visitInsn(Opcodes.RETURN);
+            mainVisitor.visitMaxs(0, 0);
+            mainVisitor.visitEnd();
+
+            //Writes the helper methods for very large expressions
+            for (int i = 0; i < outlines.size(); i++){
+                writeOutline(outlines.get(i));
+            }
+
+            //Creates the main method which runs the program on System.in and System.out
+            {
+                MethodVisitor mv=cw.visitMethod(Opcodes.ACC_PUBLIC+Opcodes.ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+                mv.visitCode();
+                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "in", "Ljava/io/InputStream;");
+                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, programName, "run", RUN_DESCRIPTOR, false);
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(2, 1);
+                mv.visitEnd();
+            }
+
+            //Ends the ClassWriter
+            cw.visitEnd();
+
+            return cw.toByteArray();
+
+    }//end finishClass
+
     @Override
     /**
      * Calls the beginClass method which creates the ClassWriter and constructor for the KnightCode class 
@@ -122,8 +181,8 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
         //Initializes the symbol table hashmap
         symbolTable = new HashMap<>();
 
-        //Initializes the memoryPointer to the top of the stack at 0
-        memoryPointer = 0;
+        //Initializes the memoryPointer to the first location after the parameters of run
+        memoryPointer = FIRST_VARIABLE_LOCATION;
 
         return super.visitDeclare(ctx);
     }//end visitDeclare
@@ -155,133 +214,783 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
 
     @Override
     /**
-     * Method that visits the body and initializes the main method
+     * Method that visits the body and initializes the run method, which takes the input and output of the program as parameters and keeps all of its state in locals so that it can be run on many threads at once
+     * The statements at the start of the body that do not depend on input are evaluated at compile time and replaced by their output and the values they leave behind, the rest of the statements are compiled normally
      * @param ctx the parser tree context of the body
-     * @return the visitor result
+     * @return null
      */
     public Object visitBody(KnightCodeParser.BodyContext ctx){  
-        // Start MethodVisitor for main method
-        mainVisitor=cw.visitMethod(Opcodes.ACC_PUBLIC+Opcodes.ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+        // Start MethodVisitor for run method
+        mainVisitor=cw.visitMethod(Opcodes.ACC_PUBLIC+Opcodes.ACC_STATIC, "run", RUN_DESCRIPTOR, null, null);
         mainVisitor.visitCode();
 
-        return super.visitBody(ctx);
+        //Creates the Scanner for the input once, if the program reads anything
+        if (hasRead(ctx)){
+            scanLocation = memoryPointer++;
+            mainVisitor.visitTypeInsn(Opcodes.NEW, "java/util/Scanner"); // Creates Scanner and pushes it to the stack
+            mainVisitor.visitInsn(Opcodes.DUP); // Duplicates the Scanner reference which will be used in initializing and storing the scanner
+            mainVisitor.visitVarInsn(Opcodes.ALOAD, IN_LOCATION); // input parameter
+            mainVisitor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/util/Scanner", "<init>", "(Ljava/io/InputStream;)V", false); // Initializes Scanner
+            mainVisitor.visitVarInsn(Opcodes.ASTORE, scanLocation); // Stores Scanner
+        }
+
+        //Evaluates as much of the body as possible at compile time
+        List<KnightCodeParser.StatContext> stats = ctx.stat();
+        PartialEvaluator evaluator = new PartialEvaluator(symbolTable, stepBudget, outputBudget);
+        evaluator.run(stats);
+        loadPrecomputed(evaluator, evaluator.usedVariables(stats));
+
+        //Compiles the rest of the statements normally
+        visitStats(stats.subList(evaluator.getResumeIndex(), stats.size()));
+
+        return null;
     }//end visitBody
+
+    /**
+     * Method that checks if there is a READ anywhere in the body
+     * @param ctx the parser tree context of the body
+     * @return true if the body contains a READ
+     */
+    public boolean hasRead(KnightCodeParser.BodyContext ctx){
+
+        //Walks the statements with an explicit stack since expressions can be very deep
+        Deque<ParseTree> pending = new ArrayDeque<>();
+        pending.push(ctx);
+
+        while (!pending.isEmpty()){
+            ParseTree node = pending.pop();
+            if (node instanceof KnightCodeParser.ReadContext){
+                return true;
+            }
+            //READ is a statement so expressions do not need to be searched
+            if (!(node instanceof KnightCodeParser.ExprContext)){
+                for (int i = 0; i < node.getChildCount(); i++){
+                    pending.push(node.getChild(i));
+                }
+            }
+        }
+
+        return false;
+    }//end hasRead
+
+    /**
+     * Method that prints all of the output of the evaluated statements with a single PRINT and then stores the known value of each variable that is used by the rest of the statements
+     * @param evaluator the PartialEvaluator that evaluated the start of the body
+     * @param used the names of the variables used by the rest of the statements
+     */
+    public void loadPrecomputed(PartialEvaluator evaluator, Set<String> used){
+
+        List<String> lines = evaluator.getOutput();
+
+        if (!lines.isEmpty()){
+            mainVisitor.visitVarInsn(Opcodes.ALOAD, OUT_LOCATION);
+
+            //Picks a separator for the lines that is not in the output, preferably a newline
+            String text = String.join("", lines);
+            char separator = '\n';
+            for (char c = 1; text.indexOf(separator) >= 0; c++){
+                separator = c;
+            }
+            mainVisitor.visitLdcInsn(String.join(String.valueOf(separator), lines));
+
+            //Replaces the separator with the line separator of the machine the program runs on, which is what println would have printed
+            if (lines.size() > 1){
+                mainVisitor.visitLdcInsn(String.valueOf(separator));
+                mainVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "lineSeparator", "()Ljava/lang/String;", false);
+                mainVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "replace", "(Ljava/lang/CharSequence;Ljava/lang/CharSequence;)Ljava/lang/String;", false);
+            }
+            mainVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+        }
+
+        //Stores the variables in order of their memory location
+        if (symbolTable == null){
+            return;
+        }
+        List<Variable> vars = new ArrayList<>(symbolTable.values());
+        vars.sort(Comparator.comparingInt(Variable::getLocation));
+
+        for (Variable var : vars){
+            Object value = evaluator.getValues().get(var.getName());
+            if (value == null || !used.contains(var.getName())){
+                continue;
+            }
+
+            mainVisitor.visitLdcInsn(value);
+            if (var.getType().equals("INTEGER")){
+                mainVisitor.visitVarInsn(Opcodes.ISTORE, var.getLocation());
+            }
+            else {
+                mainVisitor.visitVarInsn(Opcodes.ASTORE, var.getLocation());
+            }
+        }
+
+    }//end loadPrecomputed
     
     /**
-     * Method that will evaluate an expression depending on what type of context it is an instance of. It uses recursion so that once it is broken down to a terminal, it can be loaded so operations can be performed
+     * Method that will evaluate an expression depending on what type of context it is an instance of. The tree is walked with an explicit work stack instead of recursion so that very long expressions (which ANTLR parses into deeply skewed trees) cannot overflow the compiler's stack
+     * Chains of additions/subtractions and chains of multiplications are flattened into their terms, which is safe because int arithmetic wraps around and stays associative, and parts of a very large expression are moved into helper methods first
      * @param ctx the context of the expr that is to be evaluated
      */
     public void evalExpr(KnightCodeParser.ExprContext ctx){
-        
-        //If the expr is just a number reads and parses the text as an int and loads it to constant pool
-        if (ctx instanceof KnightCodeParser.NumberContext){
-            //Gets value of the number
-            int value = Integer.parseInt(ctx.getText());
 
-            //Loads value to constant pool
-            mainVisitor.visitLdcInsn(value);
-        }//number
+        //Stack needed by every expr, used to pick which term of a chain to evaluate first, and the parts of the expression that are moved into helper methods
+        Plan plan = planOutlines(ctx, stackNeeds(ctx));
 
-        //If the expr is an instance of identifier
-        else if (ctx instanceof KnightCodeParser.IdContext){
-            //Gets the identifier
-            String id = ctx.getText();
+        //Copies the variables into an array for the helper methods when part of the expression was moved into them
+        if (!plan.cuts.isEmpty() || !plan.chains.isEmpty()){
+            storeFrame(ctx, plan);
+        }
 
-            //Creates a variable reference object for the variable stored in the symbol table with the given id
-            Variable var = symbolTable.get(id);
-            
-            //If type of the variable is INTEGER
+        Deque<Object> work = new ArrayDeque<>();
+        work.push(ctx);
+        evalWork(work, plan);
+
+    }//end evalExpr
+
+    /**
+     * Method that does all of the work on the work stack of evalExpr
+     * @param work the work that is still pending: an ExprContext still has to be evaluated, an Integer is an opcode to emit once its operands are loaded, a CompContext finishes a comparison and an Outline calls a helper method
+     * @param plan the stack needed by every expr in the expression and the parts of it that are moved into helper methods
+     */
+    private void evalWork(Deque<Object> work, Plan plan){
+
+        while (!work.isEmpty()){
+            Object item = work.pop();
+
+            //Both operands are loaded so the operation can be performed
+            if (item instanceof Integer){
+                mainVisitor.visitInsn((Integer)item);
+                continue;
+            }
+
+            //Both operands are loaded so the comparison can be performed
+            if (item instanceof KnightCodeParser.CompContext){
+                pushComparison(((KnightCodeParser.CompContext)item).getText());
+                continue;
+            }
+
+            //Part of a chain that was moved into a helper method
+            if (item instanceof Outline){
+                callOutline((Outline)item);
+                continue;
+            }
+
+            KnightCodeParser.ExprContext expr = removeParenthesis((KnightCodeParser.ExprContext)item);
+
+            //An expr that was moved into a helper method is called, unless that is the helper method being written
+            Outline cut = plan.cuts.get(expr);
+            if (cut != null && cut != writing){
+                callOutline(cut);
+                continue;
+            }
+
+            //If the expr is just a number reads and parses the text as an int and loads it to constant pool
+            if (expr instanceof KnightCodeParser.NumberContext){
+                //Gets value of the number
+                int value = Integer.parseInt(expr.getText());
+
+                //Loads value to constant pool
+                mainVisitor.visitLdcInsn(value);
+            }//number
+
+            //If the expr is an instance of identifier
+            else if (expr instanceof KnightCodeParser.IdContext){
+                //Gets the identifier
+                String id = expr.getText();
+
+                //Creates a variable reference object for the variable stored in the symbol table with the given id
+                Variable var = symbolTable.get(id);
+
+                //Inside of a helper method the value comes from the array of variables
+                if (writing != null){
+                    loadFromFrame(var, plan);
+                }
+
+                //If type of the variable is INTEGER
+                else if (var.getType().equals("INTEGER")){
+                    //Loads the information where the variable is stored at
+                    mainVisitor.visitVarInsn(Opcodes.ILOAD, var.getLocation());
+                }
+
+                //If type of the variable is STRING
+                else if (var.getType().equals("STRING")){
+                    mainVisitor.visitVarInsn(Opcodes.ALOAD, var.getLocation());
+                }
+
+            }//id
+
+            //If the expr is an instance of Addition or Subtraction, the whole chain is evaluated as a list of added and subtracted terms
+            else if (expr instanceof KnightCodeParser.AdditionContext || expr instanceof KnightCodeParser.SubtractionContext){
+                scheduleChain(expr, true, plan, work);
+            }//add, sub
+
+            //If the expr is an instance of Multiplication, the whole chain is evaluated as a list of multiplied factors
+            else if (expr instanceof KnightCodeParser.MultiplicationContext){
+                scheduleChain(expr, false, plan, work);
+            }//mul
+
+            //If the expr is an instance of Division, which can not be reassociated, both sides are evaluated before dividing
+            else if (expr instanceof KnightCodeParser.DivisionContext){
+                KnightCodeParser.DivisionContext div = (KnightCodeParser.DivisionContext)expr;
+                work.push(Opcodes.IDIV);
+                work.push(div.expr(1));
+                work.push(div.expr(0));
+            }//div
+
+            //If the expr is an instance of Comparison, both sides are evaluated before comparing
+            else if (expr instanceof KnightCodeParser.ComparisonContext){
+                KnightCodeParser.ComparisonContext comp = (KnightCodeParser.ComparisonContext)expr;
+                work.push(comp.comp());
+                work.push(comp.expr(1));
+                work.push(comp.expr(0));
+            }//comp
+        }
+
+    }//end evalWork
+
+    /**
+     * Method that calls a helper method with the array of variables, which is a local of run or the only parameter of the helper method being written
+     * @param outline the helper method
+     */
+    private void callOutline(Outline outline){
+        mainVisitor.visitVarInsn(Opcodes.ALOAD, writing == null ? frameLocation : 0);
+        mainVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, programName, outline.name, HELPER_DESCRIPTOR, false);
+    }//end callOutline
+
+    /**
+     * Method that copies the INTEGER variables an expression uses into a new array in run, which is passed to every helper method of the expression so that a helper takes a single parameter no matter how many variables it reads
+     * @param ctx the context of the expression
+     * @param plan the plan of the expression, which keeps the index of each variable in the array
+     */
+    private void storeFrame(KnightCodeParser.ExprContext ctx, Plan plan){
+
+        for (Variable var : usedVariables(ctx)){
             if (var.getType().equals("INTEGER")){
-                //Loads the information where the variable is stored at
-                mainVisitor.visitVarInsn(Opcodes.ILOAD, var.getLocation());
+                plan.frame.put(var.getName(), plan.frame.size());
             }
+        }
 
-            //If type of the variable is STRING
-            else if (var.getType().equals("STRING")){
-                mainVisitor.visitVarInsn(Opcodes.ALOAD, var.getLocation());
-            } 
-            
-        }//id   
+        if (frameLocation < 0){
+            frameLocation = memoryPointer++;
+        }
 
-        //If the expr is an instance of Subtraction
-        else if (ctx instanceof KnightCodeParser.SubtractionContext){
-            
-            //Loop that evaluates each expression from the context so subtraction can be performed
-            for(KnightCodeParser.ExprContext expr : ((KnightCodeParser.SubtractionContext)ctx).expr()){
-                evalExpr(expr);
-            }//for
-        
-        //Load the subtraction opcode
-        mainVisitor.visitInsn(Opcodes.ISUB);
-            
-        }//sub
+        mainVisitor.visitLdcInsn(plan.frame.size());
+        mainVisitor.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+        for (Map.Entry<String, Integer> entry : plan.frame.entrySet()){
+            mainVisitor.visitInsn(Opcodes.DUP);
+            mainVisitor.visitLdcInsn(entry.getValue());
+            mainVisitor.visitVarInsn(Opcodes.ILOAD, symbolTable.get(entry.getKey()).getLocation());
+            mainVisitor.visitInsn(Opcodes.IASTORE);
+        }
+        mainVisitor.visitVarInsn(Opcodes.ASTORE, frameLocation);
 
-        //If the expr is an instance of Addition
-        else if (ctx instanceof KnightCodeParser.AdditionContext){
+    }//end storeFrame
 
-            //Loop that evaluates each expression from the context so addition can be performed
-            for(KnightCodeParser.ExprContext expr : ((KnightCodeParser.AdditionContext)ctx).expr()){
-                evalExpr(expr);
-            }//for
-        
-        //Load the addition opcode
-        mainVisitor.visitInsn(Opcodes.IADD);
-            
-        }//add
+    /**
+     * Method that loads the value of a variable inside of a helper method from the array of variables, which is its only parameter
+     * @param var the variable
+     * @param plan the plan of the expression, which keeps the index of each variable in the array
+     */
+    private void loadFromFrame(Variable var, Plan plan){
 
-        //If the expr is an instance of Multiplication
-        else if (ctx instanceof KnightCodeParser.MultiplicationContext){
-            
-            //Loop that evaluates each expression from the context so multiplication can be performed
-            for(KnightCodeParser.ExprContext expr : ((KnightCodeParser.MultiplicationContext)ctx).expr()){
-                evalExpr(expr);
-            }//for
-        
-        //Load the multiplication opcode
-        mainVisitor.visitInsn(Opcodes.IMUL);
-            
-        }//mul
+        //Stops the compiling since only INTEGER variables are copied into the array
+        if (!plan.frame.containsKey(var.getName())){
+            System.err.println("ERROR: " + var.getName() + " is not an INTEGER and can not be used in a very large expression");
+            System.exit(1);
+        }
 
-        //If the expr is an instance of Division
-        else if (ctx instanceof KnightCodeParser.DivisionContext){
-            
-            //Loop that evaluates each expression from the context so division can be performed
-            for(KnightCodeParser.ExprContext expr : ((KnightCodeParser.DivisionContext)ctx).expr()){
-                evalExpr(expr);
-            }//for
-        
-        //Load the division opcode
-        mainVisitor.visitInsn(Opcodes.IDIV);
-            
-        }//div
+        mainVisitor.visitVarInsn(Opcodes.ALOAD, 0);
+        mainVisitor.visitLdcInsn(plan.frame.get(var.getName()));
+        mainVisitor.visitInsn(Opcodes.IALOAD);
 
-    }//end evalExpr
+    }//end loadFromFrame
 
+    /**
+     * Method that returns the expression inside of any number of parenthesis
+     * @param ctx the context of the expr
+     * @return the first expr that is not a Parenthesis
+     */
+    private KnightCodeParser.ExprContext removeParenthesis(KnightCodeParser.ExprContext ctx){
+        while (ctx instanceof KnightCodeParser.ParenthesisContext){
+            ctx = ((KnightCodeParser.ParenthesisContext)ctx).expr();
+        }
+        return ctx;
+    }//end removeParenthesis
 
-    @Override
     /**
-     * Method that when visiting a comparison, will perform the comparison operation and if true load one, if false load 0
-     * @param ctx the parser tree context of the comparison
-     * @return the visitor result
+     * Method that finds how many operand stack slots evaluating each expr needs, the same way evalExpr will evaluate it (Sethi-Ullman numbering)
+     * A number or identifier needs 1. A division or comparison evaluates its left side first so it needs max(left, right + 1). A chain starts with the term that needs the most and holds the running total under every other term, so it needs max(largest, second largest + 1) over its terms
+     * @param ctx the context of the expression
+     * @return map from each expr to {stack needed, largest term need, second largest term need}, where the term needs are only used for chains
      */
-    public Object visitComparison(KnightCodeParser.ComparisonContext ctx){
-        
-        Label trueLabel = new Label();//Label for true
-        Label endLabel = new Label();//Label for false
+    private Map<KnightCodeParser.ExprContext, int[]> stackNeeds(KnightCodeParser.ExprContext ctx){
+
+        Map<KnightCodeParser.ExprContext, int[]> needs = new IdentityHashMap<>();
+
+        //Each expr is pushed twice, the second time once its children have their needs
+        Deque<KnightCodeParser.ExprContext> pending = new ArrayDeque<>();
+        Deque<Boolean> childrenDone = new ArrayDeque<>();
+        pending.push(ctx);
+        childrenDone.push(false);
+
+        while (!pending.isEmpty()){
+            KnightCodeParser.ExprContext expr = pending.pop();
+            List<KnightCodeParser.ExprContext> children = expr.getRuleContexts(KnightCodeParser.ExprContext.class);
+
+            if (!childrenDone.pop()){
+                pending.push(expr);
+                childrenDone.push(true);
+                for (KnightCodeParser.ExprContext child : children){
+                    pending.push(child);
+                    childrenDone.push(false);
+                }
+            }
+            else if (expr instanceof KnightCodeParser.ParenthesisContext){
+                needs.put(expr, needs.get(children.get(0)));
+            }
+            else if (children.isEmpty()){
+                needs.put(expr, new int[]{1, 1, 0});
+            }
+            else if (chainKind(expr) != 0){
+                //Keeps the two largest term needs, looking through children that continue the same chain
+                int largest = 0;
+                int second = 0;
+                for (KnightCodeParser.ExprContext child : children){
+                    int[] need = needs.get(child);
+                    int[] terms = chainKind(removeParenthesis(child)) == chainKind(expr) ? new int[]{need[1], need[2]} : new int[]{need[0]};
+                    for (int term : terms){
+                        if (term > largest){
+                            second = largest;
+                            largest = term;
+                        }
+                        else if (term > second){
+                            second = term;
+                        }
+                    }
+                }
+                needs.put(expr, new int[]{Math.max(largest, second + 1), largest, second});
+            }
+            else {
+                int left = needs.get(children.get(0))[0];
+                int right = needs.get(children.get(1))[0];
+                needs.put(expr, new int[]{Math.max(left, right + 1), 0, 0});
+            }
+        }
 
-        //Get the comparison operator
-        String op = ctx.comp().getText();
+        return needs;
+    }//end stackNeeds
+
+    /**
+     * Method that returns which kind of chain an expr belongs to when chains are flattened
+     * @param ctx the context of the expr
+     * @return 1 for an addition or subtraction, 2 for a multiplication, 0 for anything else
+     */
+    private int chainKind(KnightCodeParser.ExprContext ctx){
+        if (ctx instanceof KnightCodeParser.AdditionContext || ctx instanceof KnightCodeParser.SubtractionContext){
+            return 1;
+        }
+        if (ctx instanceof KnightCodeParser.MultiplicationContext){
+            return 2;
+        }
+        return 0;
+    }//end chainKind
+
+    /**
+     * Method that decides which parts of an expression are moved into helper methods so that no method goes over the JVM's limit of 65535 bytes of bytecode
+     * The bytes each expr takes are estimated from the bottom up, counting a part that was moved out as the call to its helper. Whenever a division or comparison is over MAX_INLINE_SIZE its larger side is moved out until it fits, and a chain that is over it has its terms split into groups of consecutive terms that each fit, each group in its own helper method. This way every kind of expr is covered and every helper method, and the expression left in the method being written, stays under MAX_INLINE_SIZE
+     * @param ctx the context of the expression
+     * @param needs the stack needed by every expr in the expression
+     * @return the plan of the expression
+     */
+    private Plan planOutlines(KnightCodeParser.ExprContext ctx, Map<KnightCodeParser.ExprContext, int[]> needs){
+
+        Plan plan = new Plan(needs);
+        Map<KnightCodeParser.ExprContext, Integer> sizes = new IdentityHashMap<>(); //estimated bytes of each expr once its parts are moved out
+
+        //Each expr is pushed twice, the second time once its operands have their sizes. The operands of a chain are its flattened terms
+        Deque<KnightCodeParser.ExprContext> pending = new ArrayDeque<>();
+        Deque<Boolean> operandsDone = new ArrayDeque<>();
+        Map<KnightCodeParser.ExprContext, List<KnightCodeParser.ExprContext>> operands = new IdentityHashMap<>();
+        Map<KnightCodeParser.ExprContext, List<Integer>> operandOps = new IdentityHashMap<>();
+        pending.push(removeParenthesis(ctx));
+        operandsDone.push(false);
+
+        while (!pending.isEmpty()){
+            KnightCodeParser.ExprContext expr = pending.pop();
+
+            if (!operandsDone.pop()){
+                List<KnightCodeParser.ExprContext> terms = new ArrayList<>();
+                List<Integer> ops = new ArrayList<>();
+                if (chainKind(expr) != 0){
+                    flattenChain(expr, chainKind(expr) == 1, terms, ops);
+                }
+                else {
+                    for (KnightCodeParser.ExprContext child : expr.getRuleContexts(KnightCodeParser.ExprContext.class)){
+                        terms.add(removeParenthesis(child));
+                    }
+                }
+                operands.put(expr, terms);
+                operandOps.put(expr, ops);
+
+                pending.push(expr);
+                operandsDone.push(true);
+                for (KnightCodeParser.ExprContext term : terms){
+                    pending.push(term);
+                    operandsDone.push(false);
+                }
+            }
+            //LDC_W of a number takes 3 bytes, loading a variable from the array of a helper method takes at most 5
+            else if (operands.get(expr).isEmpty()){
+                sizes.put(expr, 5);
+            }
+            else if (chainKind(expr) != 0){
+                sizes.put(expr, planChain(expr, operands.get(expr), operandOps.get(expr), sizes, plan));
+            }
+            else {
+                //IDIV takes 1 byte, the jumps and constants of a comparison take 12
+                List<KnightCodeParser.ExprContext> sides = operands.get(expr);
+                int[] sideSizes = {sizes.get(sides.get(0)), sizes.get(sides.get(1))};
+                int size = (expr instanceof KnightCodeParser.ComparisonContext ? 12 : 1) + sideSizes[0] + sideSizes[1];
+
+                //Moves the larger side out until the expr fits
+                while (size > MAX_INLINE_SIZE){
+                    int side = sideSizes[0] >= sideSizes[1] ? 0 : 1;
+                    outlineExpr(sides.get(side), plan);
+                    size += OUTLINE_CALL_SIZE - sideSizes[side];
+                    sideSizes[side] = OUTLINE_CALL_SIZE;
+                }
+                sizes.put(expr, size);
+            }
+        }
+
+        return plan;
+    }//end planOutlines
+
+    /**
+     * Method that estimates the bytes a chain takes and, when that is over MAX_INLINE_SIZE, splits its terms into groups of consecutive terms that each fit in a helper method
+     * A group of several terms returns their sum (or product), so the groups are added (or multiplied) together. A term too large to share a group is moved into a helper method of its own
+     * @param ctx the root of the chain
+     * @param terms the terms of the chain from left to right
+     * @param ops the opcode that applies each term to the running total
+     * @param sizes the estimated bytes of every term
+     * @param plan the plan of the expression, where the groups are kept
+     * @return the estimated bytes of the chain
+     */
+    private int planChain(KnightCodeParser.ExprContext ctx, List<KnightCodeParser.ExprContext> terms, List<Integer> ops, Map<KnightCodeParser.ExprContext, Integer> sizes, Plan plan){
+
+        //Each term also takes the opcode that applies it, and the chain may take an INEG
+        int size = 1;
+        for (KnightCodeParser.ExprContext term : terms){
+            size += sizes.get(term) + 1;
+        }
+        if (size <= MAX_INLINE_SIZE){
+            return size;
+        }
+
+        List<Object> groups = new ArrayList<>(); //the helper calls and terms that make up the chain now
+        List<Integer> groupOps = new ArrayList<>(); //opcode that applies each of them to the running total
+        size = 1;
+
+        int start = 0;
+        while (start < terms.size()){
+            //Takes terms until the next one would make the group too large
+            int end = start;
+            int groupSize = 0;
+            while (end < terms.size() && (end == start || groupSize + sizes.get(terms.get(end)) + 1 <= MAX_INLINE_SIZE)){
+                groupSize += sizes.get(terms.get(end)) + 1;
+                end++;
+            }
+
+            if (end - start == 1){
+                KnightCodeParser.ExprContext term = terms.get(start);
+                if (sizes.get(term) > OUTLINE_CALL_SIZE){
+                    outlineExpr(term, plan);
+                }
+                groups.add(term);
+                groupOps.add(ops.get(start));
+                size += Math.min(sizes.get(term), OUTLINE_CALL_SIZE) + 1;
+            }
+            else {
+                Outline outline = new Outline("expr" + outlines.size(), new ArrayList<Object>(terms.subList(start, end)), new ArrayList<>(ops.subList(start, end)), plan);
+                outlines.add(outline);
+                groups.add(outline);
+                groupOps.add(chainKind(ctx) == 1 ? Opcodes.IADD : Opcodes.IMUL);
+                size += OUTLINE_CALL_SIZE + 1;
+            }
+            start = end;
+        }
+
+        //The chain keeps no helper method of its own, so its regrouped terms have no name
+        plan.chains.put(ctx, new Outline(null, groups, groupOps, plan));
+        return size;
+    }//end planChain
+
+    /**
+     * Method that moves a whole expr into a helper method of its own
+     * @param expr the expr
+     * @param plan the plan of the expression
+     */
+    private void outlineExpr(KnightCodeParser.ExprContext expr, Plan plan){
+        Outline outline = new Outline("expr" + outlines.size(), new ArrayList<Object>(Collections.singletonList(expr)), new ArrayList<>(Collections.singletonList(Opcodes.IADD)), plan);
+        outlines.add(outline);
+        plan.cuts.put(expr, outline);
+    }//end outlineExpr
+
+    /**
+     * Method that flattens a chain of additions and subtractions (or a chain of multiplications) into its terms, or takes the groups planOutlines split it into, and hands them to scheduleTerms
+     * @param ctx the root of the chain
+     * @param additive true for a chain of additions and subtractions, false for a chain of multiplications
+     * @param plan the stack needed by every expr in the expression and the parts of it that are moved into helper methods
+     * @param work the work stack of evalExpr
+     */
+    private void scheduleChain(KnightCodeParser.ExprContext ctx, boolean additive, Plan plan, Deque<Object> work){
+
+        //A chain too large for one method had its terms split into groups when the expression was planned
+        Outline grouped = plan.chains.get(ctx);
+        if (grouped != null){
+            scheduleTerms(new ArrayList<>(grouped.terms), new ArrayList<>(grouped.ops), plan, work);
+            return;
+        }
+
+        List<KnightCodeParser.ExprContext> terms = new ArrayList<>(); //terms of the chain from left to right
+        List<Integer> ops = new ArrayList<>(); //opcode that applies each term to the running total
+        flattenChain(ctx, additive, terms, ops);
+
+        scheduleTerms(new ArrayList<Object>(terms), ops, plan, work);
+
+    }//end scheduleChain
+
+    /**
+     * Method that flattens a chain of additions and subtractions (or a chain of multiplications) into its terms from left to right
+     * @param ctx the root of the chain
+     * @param additive true for a chain of additions and subtractions, false for a chain of multiplications
+     * @param terms the list the terms are added to
+     * @param ops the list the opcode that applies each term to the running total is added to
+     */
+    private void flattenChain(KnightCodeParser.ExprContext ctx, boolean additive, List<KnightCodeParser.ExprContext> terms, List<Integer> ops){
+
+        //Nodes still to be flattened along with whether they are subtracted
+        Deque<KnightCodeParser.ExprContext> pending = new ArrayDeque<>();
+        Deque<Boolean> negated = new ArrayDeque<>();
+        pending.push(ctx);
+        negated.push(false);
+
+        while (!pending.isEmpty()){
+            KnightCodeParser.ExprContext expr = removeParenthesis(pending.pop());
+            boolean neg = negated.pop();
+
+            //Right side is pushed first so that the left side is flattened first
+            if (additive && expr instanceof KnightCodeParser.AdditionContext){
+                KnightCodeParser.AdditionContext add = (KnightCodeParser.AdditionContext)expr;
+                pending.push(add.expr(1));
+                negated.push(neg);
+                pending.push(add.expr(0));
+                negated.push(neg);
+            }
+            //a - (b + c) is a - b - c and a - (b - c) is a - b + c
+            else if (additive && expr instanceof KnightCodeParser.SubtractionContext){
+                KnightCodeParser.SubtractionContext sub = (KnightCodeParser.SubtractionContext)expr;
+                pending.push(sub.expr(1));
+                negated.push(!neg);
+                pending.push(sub.expr(0));
+                negated.push(neg);
+            }
+            else if (!additive && expr instanceof KnightCodeParser.MultiplicationContext){
+                KnightCodeParser.MultiplicationContext mul = (KnightCodeParser.MultiplicationContext)expr;
+                pending.push(mul.expr(1));
+                negated.push(false);
+                pending.push(mul.expr(0));
+                negated.push(false);
+            }
+            else {
+                terms.add(expr);
+                ops.add(!additive ? Opcodes.IMUL : neg ? Opcodes.ISUB : Opcodes.IADD);
+            }
+        }
+
+    }//end flattenChain
+
+    /**
+     * Method that pushes the terms of a chain onto the work stack of evalExpr. The terms are accumulated one at a time, so the operand stack only ever holds the running total and the term being evaluated
+     * The term that needs the most stack is evaluated first when that lowers the stack the chain needs, since the running total would otherwise sit on the stack underneath it. Otherwise the first term goes first
+     * If the term that goes first is subtracted, the chain is evaluated negated (a - T is -(T - a), which is exact on ints since they wrap around) and a single INEG restores the sign at the end
+     * @param terms the terms of the chain, each an ExprContext or an Outline
+     * @param ops the opcode that applies each term to the running total
+     * @param plan the stack needed by every expr in the expression and the parts of it that are moved into helper methods
+     * @param work the work stack of evalExpr
+     */
+    private void scheduleTerms(List<Object> terms, List<Integer> ops, Plan plan, Deque<Object> work){
+
+        //Finds the term that needs the most stack and the most any other term needs
+        int largest = 0;
+        int second = 0;
+        for (int i = 1; i < terms.size(); i++){
+            int need = termNeed(terms.get(i), plan);
+            if (need > termNeed(terms.get(largest), plan)){
+                second = Math.max(second, termNeed(terms.get(largest), plan));
+                largest = i;
+            }
+            else {
+                second = Math.max(second, need);
+            }
+        }
+        if (largest == 0){
+            second = 0;
+            for (int i = 1; i < terms.size(); i++){
+                second = Math.max(second, termNeed(terms.get(i), plan));
+            }
+        }
+
+        //Only moves that term first when it lowers the stack the chain needs, which keeps the first term first and avoids an INEG otherwise
+        int first = 0;
+        if (largest != 0 && termNeed(terms.get(largest), plan) > second && termNeed(terms.get(largest), plan) > termNeed(terms.get(0), plan)){
+            first = largest;
+        }
+        terms.add(0, terms.remove(first));
+        ops.add(0, ops.remove(first));
+
+        //When the first term is subtracted, every other term is applied with the opposite sign and the result is negated
+        boolean negate = ops.get(0) == Opcodes.ISUB;
+        if (negate){
+            work.push(Opcodes.INEG);
+        }
+
+        for (int i = terms.size() - 1; i > 0; i--){
+            int op = ops.get(i);
+            if (negate){
+                op = op == Opcodes.IADD ? Opcodes.ISUB : Opcodes.IADD;
+            }
+            work.push(op);
+            work.push(terms.get(i));
+        }
+        work.push(terms.get(0));
+
+    }//end scheduleTerms
+
+    /**
+     * Method that returns the stack a term of a chain needs, where a call to a helper method only needs the slot of the array it passes
+     * @param term an ExprContext or an Outline
+     * @param plan the stack needed by every expr in the expression and the parts of it that are moved into helper methods
+     * @return the number of stack slots the term needs
+     */
+    private int termNeed(Object term, Plan plan){
+        if (term instanceof Outline || plan.cuts.containsKey(term)){
+            return 1;
+        }
+        return plan.needs.get(term)[0];
+    }//end termNeed
+
+    /**
+     * Method that finds the variables used by an expr
+     * @param ctx the context of the expr
+     * @return the variables in order of their memory location
+     */
+    private List<Variable> usedVariables(KnightCodeParser.ExprContext ctx){
+
+        Set<Variable> used = new TreeSet<>(Comparator.comparingInt(Variable::getLocation));
+
+        //Walks the expr with an explicit stack since it can be very deep
+        Deque<ParseTree> pending = new ArrayDeque<>();
+        pending.push(ctx);
+        while (!pending.isEmpty()){
+            ParseTree node = pending.pop();
+            if (node instanceof KnightCodeParser.IdContext){
+                used.add(symbolTable.get(node.getText()));
+            }
+            for (int i = 0; i < node.getChildCount(); i++){
+                pending.push(node.getChild(i));
+            }
+        }
+
+        return new ArrayList<>(used);
+    }//end usedVariables
+
+    /**
+     * Method that writes the helper method for an expr or a group of terms of a chain that was moved out of a very large expression. It takes the array of variables of the expression and returns the value of the expr or group
+     * @param outline the expr or group of terms
+     */
+    private void writeOutline(Outline outline){
+
+        MethodVisitor runVisitor = mainVisitor;
+        writing = outline;
+
+        mainVisitor = cw.visitMethod(Opcodes.ACC_PRIVATE+Opcodes.ACC_STATIC, outline.name, HELPER_DESCRIPTOR, null, null);
+        mainVisitor.visitCode();
+
+        Deque<Object> work = new ArrayDeque<>();
+        scheduleTerms(new ArrayList<>(outline.terms), new ArrayList<>(outline.ops), outline.plan, work);
+        evalWork(work, outline.plan);
+
+        mainVisitor.visitInsn(Opcodes.IRETURN);
+        mainVisitor.visitMaxs(0, 0);
+        mainVisitor.visitEnd();
+
+        mainVisitor = runVisitor;
+        writing = null;
+
+    }//end writeOutline
+
+    /**
+     * Class that holds the parts of an expression that are moved into helper methods, so that no method goes over the JVM's limit of 65535 bytes of bytecode
+     */
+    private static class Plan {
+
+        Map<KnightCodeParser.ExprContext, int[]> needs; //stack needed by every expr in the expression
+        Map<KnightCodeParser.ExprContext, Outline> cuts = new IdentityHashMap<>(); //exprs that are each evaluated by calling a helper method
+        Map<KnightCodeParser.ExprContext, Outline> chains = new IdentityHashMap<>(); //chains whose terms were split into groups, along with those groups
+        Map<String, Integer> frame = new LinkedHashMap<>(); //index of each variable in the array the helper methods take
+
+        /**
+         * Constructor for a Plan
+         * @param needs the stack needed by every expr in the expression
+         */
+        Plan(Map<KnightCodeParser.ExprContext, int[]> needs){
+            this.needs = needs;
+        }//end constructor
+
+    }//end Plan
+
+    /**
+     * Class that holds a list of terms that are applied to a running total one after the other: the body of a helper method, which is a single expr or a group of terms of a chain, or the regrouped terms of a chain
+     */
+    private static class Outline {
+
+        String name; //name of the helper method, null for the regrouped terms of a chain
+        List<Object> terms; //terms from left to right, each an ExprContext or an Outline
+        List<Integer> ops; //opcode that applies each term to the running total
+        Plan plan; //plan of the expression the terms came from
+
+        /**
+         * Constructor for an Outline
+         * @param name the name of the helper method
+         * @param terms the terms from left to right
+         * @param ops the opcode that applies each term to the running total
+         * @param plan the plan of the expression
+         */
+        Outline(String name, List<Object> terms, List<Integer> ops, Plan plan){
+            this.name = name;
+            this.terms = terms;
+            this.ops = ops;
+            this.plan = plan;
+        }//end constructor
+
+    }//end Outline
 
-        //Evaluates both of the expressions to make sure they are loaded
-        evalExpr(ctx.expr(0));
-        evalExpr(ctx.expr(1));
+    /**
+     * Method that compares the top two ints on the stack and loads 1 if the comparison is true or 0 if it is false
+     * @param op the comparison operator
+     */
+    private void pushComparison(String op){
+
+        Label trueLabel = new Label();//Label for true
+        Label endLabel = new Label();//Label for false
 
         //Switch statement that decides which comparison instruction should be loaded
         switch (op) {
             case ">":
                 mainVisitor.visitJumpInsn(Opcodes.IF_ICMPGT, trueLabel);
                 break;
-        
+
             case "<":
                 mainVisitor.visitJumpInsn(Opcodes.IF_ICMPLT, trueLabel);
                 break;
@@ -305,9 +1014,41 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
         //Visit the end label
         mainVisitor.visitLabel(endLabel);
 
-        return super.visitComparison(ctx);
+    }//end pushComparison
+
+
+    @Override
+    /**
+     * Method that when visiting a comparison, will perform the comparison operation and if true load one, if false load 0
+     * @param ctx the parser tree context of the comparison
+     * @return null
+     */
+    public Object visitComparison(KnightCodeParser.ComparisonContext ctx){
+
+        //Evaluates the comparison and both of its expressions without visiting the children again
+        evalExpr(ctx);
+
+        return null;
     }//end visitComparison
 
+    @Override
+    /**
+     * Method that handles a stat, evaluating a stat that is only an expression and discarding its value
+     * @param ctx the parser tree context of the stat
+     * @return the visitor result
+     */
+    public Object visitStat(KnightCodeParser.StatContext ctx){
+
+        //Evaluates the expression and pops its value since nothing is stored
+        if (ctx.expr() != null){
+            evalExpr(ctx.expr());
+            mainVisitor.visitInsn(Opcodes.POP);
+            return null;
+        }
+
+        return super.visitStat(ctx);
+    }//end visitStat
+
 
     /**
      * Method that will check if a string is either a number or an identifier in the symbol table and will load it accordingly
@@ -330,6 +1071,225 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
         }
     }//end loadInteger
     
+    /**
+     * Method that returns the stats of either the THEN block or the ELSE block of a decision
+     * @param ctx the parser tree context of the decision
+     * @param elseBlock true for the ELSE block, false for the THEN block
+     * @return the stats of the block, which is empty for a missing ELSE block
+     */
+    public static List<KnightCodeParser.StatContext> decisionBlock(KnightCodeParser.DecisionContext ctx, boolean elseBlock){
+
+        List<KnightCodeParser.StatContext> block = new ArrayList<>();
+        boolean inElse = false; //true once the ELSE has been passed
+
+        for (ParseTree child : ctx.children){
+            if (child instanceof TerminalNode && child.getText().equals("ELSE")){
+                inElse = true;
+            }
+            else if (child instanceof KnightCodeParser.StatContext && inElse == elseBlock){
+                block.add((KnightCodeParser.StatContext)child);
+            }
+        }
+
+        return block;
+    }//end decisionBlock
+
+    /**
+     * Method that visits a list of stats in order, compiling any chain of IF statements that test the same INTEGER variable for equality with different numbers as a single switch
+     * There are two kinds of chains: IFs without an ELSE that follow one another and do not change the variable, and IFs whose ELSE block is only the next IF of the chain
+     * @param stats the stats to visit
+     */
+    public void visitStats(List<KnightCodeParser.StatContext> stats){
+
+        int i = 0;
+        while (i < stats.size()){
+            KnightCodeParser.DecisionContext decision = stats.get(i).decision();
+            String var = decision == null ? null : switchVariable(decision);
+
+            if (var != null){
+                Map<Integer, List<KnightCodeParser.StatContext>> cases = new LinkedHashMap<>(); //stats for each number, in the order they appear
+                List<KnightCodeParser.StatContext> defaultStats = new ArrayList<>(); //stats when no number matches
+
+                //IFs following one another, where each number that matches runs its block
+                int end = i;
+                while (end < stats.size() && stats.get(end).decision() != null && decisionBlock(stats.get(end).decision(), true).isEmpty()
+                        && var.equals(switchVariable(stats.get(end).decision())) && !modifies(decisionBlock(stats.get(end).decision(), false), var)){
+                    KnightCodeParser.DecisionContext d = stats.get(end).decision();
+                    cases.computeIfAbsent(switchValue(d), k -> new ArrayList<>()).addAll(decisionBlock(d, false));
+                    end++;
+                }
+
+                if (cases.size() >= MIN_SWITCH_CASES){
+                    emitSwitch(var, cases, defaultStats);
+                    i = end;
+                    continue;
+                }
+
+                //IFs nested in ELSE blocks, where only the first number that matches runs its block
+                cases.clear();
+                KnightCodeParser.DecisionContext d = decision;
+                while (true){
+                    cases.putIfAbsent(switchValue(d), decisionBlock(d, false));
+                    List<KnightCodeParser.StatContext> elseStats = decisionBlock(d, true);
+
+                    if (elseStats.size() == 1 && elseStats.get(0).decision() != null && var.equals(switchVariable(elseStats.get(0).decision()))){
+                        d = elseStats.get(0).decision();
+                    }
+                    else {
+                        defaultStats = elseStats;
+                        break;
+                    }
+                }
+
+                if (cases.size() >= MIN_SWITCH_CASES){
+                    emitSwitch(var, cases, defaultStats);
+                    i++;
+                    continue;
+                }
+            }
+
+            visit(stats.get(i));
+            i++;
+        }
+
+    }//end visitStats
+
+    /**
+     * Method that checks if a decision tests an INTEGER variable for equality with a number
+     * @param ctx the parser tree context of the decision
+     * @return the name of the variable, or null if the decision is any other comparison
+     */
+    private String switchVariable(KnightCodeParser.DecisionContext ctx){
+
+        if (!ctx.comp().getText().equals("=") || symbolTable == null){
+            return null;
+        }
+
+        String left = ctx.getChild(1).getText();
+        String right = ctx.getChild(3).getText();
+
+        //The variable may be on either side of the =
+        for (String[] pair : new String[][]{{left, right}, {right, left}}){
+            Variable var = symbolTable.get(pair[0]);
+            if (var != null && var.getType().equals("INTEGER") && !symbolTable.containsKey(pair[1])){
+                try {
+                    Integer.parseInt(pair[1]);
+                    return pair[0];
+                }
+                catch (NumberFormatException e){
+                    return null;
+                }
+            }
+        }
+
+        return null;
+    }//end switchVariable
+
+    /**
+     * Method that returns the number a decision found by switchVariable compares its variable with
+     * @param ctx the parser tree context of the decision
+     * @return the number
+     */
+    private int switchValue(KnightCodeParser.DecisionContext ctx){
+        String left = ctx.getChild(1).getText();
+        return Integer.parseInt(symbolTable.containsKey(left) ? ctx.getChild(3).getText() : left);
+    }//end switchValue
+
+    /**
+     * Method that checks if any of the stats, including stats nested inside of them, can change a variable
+     * @param stats the stats to check
+     * @param var the name of the variable
+     * @return true if the variable is the target of a SET, READ or INC
+     */
+    private boolean modifies(List<KnightCodeParser.StatContext> stats, String var){
+
+        //Walks the stats with an explicit stack, skipping expressions since they can not change a variable
+        Deque<ParseTree> pending = new ArrayDeque<>(stats);
+
+        while (!pending.isEmpty()){
+            ParseTree node = pending.pop();
+
+            if (node instanceof KnightCodeParser.SetvarContext && ((KnightCodeParser.SetvarContext)node).ID().getText().equals(var)
+                    || node instanceof KnightCodeParser.ReadContext && ((KnightCodeParser.ReadContext)node).ID().getText().equals(var)
+                    || node instanceof KnightCodeParser.IncContext && ((KnightCodeParser.IncContext)node).ID().getText().equals(var)){
+                return true;
+            }
+
+            if (!(node instanceof KnightCodeParser.ExprContext)){
+                for (int i = 0; i < node.getChildCount(); i++){
+                    pending.push(node.getChild(i));
+                }
+            }
+        }
+
+        return false;
+    }//end modifies
+
+    /**
+     * Method that compiles a chain of IFs as a switch on the variable, loading the variable once and jumping straight to the block of the number it matches
+     * Uses a TABLESWITCH when the numbers are close together and a LOOKUPSWITCH when they are spread out, weighing size and speed the same way javac does
+     * @param var the name of the variable
+     * @param cases the stats to run for each number
+     * @param defaultStats the stats to run when no number matches
+     */
+    private void emitSwitch(String var, Map<Integer, List<KnightCodeParser.StatContext>> cases, List<KnightCodeParser.StatContext> defaultStats){
+
+        Label endLabel = new Label(); //the end label
+        Label defaultLabel = defaultStats.isEmpty() ? endLabel : new Label(); //goes here when no number matches
+
+        //Numbers in order along with the label of their block
+        int[] keys = cases.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        Map<Integer, Label> caseLabels = new HashMap<>();
+        Label[] labels = new Label[keys.length];
+        for (int i = 0; i < keys.length; i++){
+            labels[i] = new Label();
+            caseLabels.put(keys[i], labels[i]);
+        }
+
+        loadInteger(var);
+
+        //Compares the cost of a table covering every number from the lowest to the highest with the cost of a sorted lookup
+        long tableSpaceCost = 4 + ((long)keys[keys.length - 1] - keys[0] + 1);
+        long tableTimeCost = 3;
+        long lookupSpaceCost = 3 + 2 * (long)keys.length;
+        long lookupTimeCost = keys.length;
+
+        if (tableSpaceCost + 3 * tableTimeCost <= lookupSpaceCost + 3 * lookupTimeCost){
+            Label[] table = new Label[keys[keys.length - 1] - keys[0] + 1];
+            Arrays.fill(table, defaultLabel);
+            for (int i = 0; i < keys.length; i++){
+                table[keys[i] - keys[0]] = labels[i];
+            }
+            mainVisitor.visitTableSwitchInsn(keys[0], keys[keys.length - 1], defaultLabel, table);
+        }
+        else {
+            mainVisitor.visitLookupSwitchInsn(defaultLabel, keys, labels);
+        }
+
+        //Visits the block of each number in the order they appear, jumping to the end after each one
+        Iterator<Map.Entry<Integer, List<KnightCodeParser.StatContext>>> it = cases.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<Integer, List<KnightCodeParser.StatContext>> entry = it.next();
+            mainVisitor.visitLabel(caseLabels.get(entry.getKey()));
+            visitStats(entry.getValue());
+
+            //The last block falls through to the end when there are no default stats
+            if (it.hasNext() || !defaultStats.isEmpty()){
+                mainVisitor.visitJumpInsn(Opcodes.GOTO, endLabel);
+            }
+        }
+
+        //Visits the default stats if there are any
+        if (!defaultStats.isEmpty()){
+            mainVisitor.visitLabel(defaultLabel);
+            visitStats(defaultStats);
+        }
+
+        //End label
+        mainVisitor.visitLabel(endLabel);
+
+    }//end emitSwitch
+
     @Override
     /**
      * Method that handles the logic for a simple IF THEN ELSE logic based off of a comparison using jumps
@@ -371,39 +1331,9 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
                 break;
         }
 
-        //Check to see if there is an else statement
-        boolean hasElse = false; //true if there is an else statement
-        int endLocation = 6; //minimum location of the endif
-
-         //Loop that figures out the location of the endif
-         while (!ctx.getChild(endLocation).getText().equals("ENDIF")){
-            endLocation++;
-        }  
-        
-        //Checks to see if an else statement is included
-        for(int i = 0; i<ctx.children.size(); i++){
-            if(ctx.getChild(i).getText().equals("ELSE")){
-                hasElse = true;
-                break;
-            }
-        }
-
-        int elseLocation = 6; // least possible child index for else location (IF x comp y THEN stat ELSE)
-        
-        //Handles else block if there is an else block
-        if(hasElse){
-    
-            //Loop that figures out how many stats there are in the if block
-            while (!ctx.getChild(elseLocation).getText().equals("ELSE")){
-                elseLocation++;
-            }  
-            
-            //ELSE
-            //Loop that runs all of the stats within the else block
-            for(int i = elseLocation+1; i<ctx.getChildCount(); i++){
-                visit(ctx.getChild(i));
-            }
-        }
+        //ELSE
+        //Runs all of the stats within the else block, if there is one
+        visitStats(decisionBlock(ctx, true));
 
         //Jump to end after else or no else has executed and the comp was false
         mainVisitor.visitJumpInsn(Opcodes.GOTO, endLabel);
@@ -412,20 +1342,8 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
         // Go here when comparison is true
         mainVisitor.visitLabel(trueLabel);
 
-        //handles the if, when there is an else
-        if(hasElse){
-            //Starts at location of first stat of the then block and visits stats until reaches the location of the else
-            for (int i = 5; i< elseLocation;i++){
-                visit(ctx.getChild(i));
-            }
-        }
-        //Handles if the if when there is no else
-        else{
-            //Starts at location of first stat in the if block and visits stats until it reaches location of the ENDIF
-            for (int i = 5; i< endLocation;i++){
-                visit(ctx.getChild(i));
-            }
-        }
+        //Runs all of the stats within the then block
+        visitStats(decisionBlock(ctx, false));
 
         //End label
         mainVisitor.visitLabel(endLabel);
@@ -470,10 +1388,40 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
             mainVisitor.visitVarInsn(Opcodes.ASTORE, var.getLocation());
         } 
         
-        return super.visitSetvar(ctx);
-        
+        //Children are not visited since the expression has already been evaluated
+        return null;
+
     }//end visitSetvar
 
+    @Override
+    /**
+     * Is triggered when Inc is visited and will add the value of the expression to a previously declared INTEGER variable
+     * @param ctx the parser tree context of the inc
+     * @return null
+     */
+    public Object visitInc(KnightCodeParser.IncContext ctx){
+
+        //Name of variable to be incremented
+        String varName = ctx.ID().getText();
+
+        //Creates variable object for the variable
+        Variable var = symbolTable.get(varName);
+
+        //Stops the visiting if the variable was not previously declared as an INTEGER
+        if (var == null || !var.getType().equals("INTEGER")){
+            System.err.println("ERROR: " + varName + " has not been declared as an INTEGER");
+            System.exit(1);
+        }
+
+        //Adds the expression to the current value and stores it back
+        mainVisitor.visitVarInsn(Opcodes.ILOAD, var.getLocation());
+        evalExpr(ctx.expr());
+        mainVisitor.visitInsn(Opcodes.IADD);
+        mainVisitor.visitVarInsn(Opcodes.ISTORE, var.getLocation());
+
+        return null;
+    }//end visitInc
+
     @Override
     /**
      * Is triggered whenever print is encountered and will either print out the value of the identifier specified, or a string that is specified
@@ -482,8 +1430,8 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
      */
     public Object visitPrint(KnightCodeParser.PrintContext ctx){
        
-        //Fetches the print stream field
-        mainVisitor.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+        //Loads the output parameter of run
+        mainVisitor.visitVarInsn(Opcodes.ALOAD, OUT_LOCATION);
 
         // If the subject of the printing is an ID then it searches and finds its stack location so it can be loaded to be printed
         if(ctx.ID() != null){   
@@ -513,7 +1461,7 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
     
     @Override
     /**
-     * Method that will read an input from the user and store it in the variable whose identifier follows the read call 
+     * Method that will read a line of input from the user and store it in the variable whose identifier follows the read call 
      * @param ctx the parser tree context of the read
      * @return the visitor result
      */
@@ -522,22 +1470,14 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
         //Initializes the variable that will store the value inputted by the user
         Variable var = symbolTable.get(ctx.ID().getText());
 
-        //Sets the location where the scanner will be loaded to as the next valuable in the memory location
-        int scanLocation = memoryPointer++;
-
-        // Initializes the Scanner object
-        mainVisitor.visitTypeInsn(Opcodes.NEW, "java/util/Scanner"); // Creates Scanner and pushes it to the stack
-        mainVisitor.visitInsn(Opcodes.DUP); // Duplicates the Scanner reference which will be used in initializing and storing the scanner
-        mainVisitor.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "in", "Ljava/io/InputStream;"); // System.in
-        mainVisitor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/util/Scanner", "<init>", "(Ljava/io/InputStream;)V", false); // Initializes Scanner
-        mainVisitor.visitVarInsn(Opcodes.ASTORE, scanLocation); // Stores Scanner
-
         //Handles if variable is of type int
         if (var.getType().equals("INTEGER")){
 
-            // Read integer input from the user
-            mainVisitor.visitVarInsn(Opcodes.ALOAD, scanLocation); // Loads scanner
-            mainVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/Scanner", "nextInt", "()I", false); // Scan.nextLong()
+            // Read integer input from the user, one line per READ like a String
+            mainVisitor.visitVarInsn(Opcodes.ALOAD, scanLocation); // Loads scanner created at the start of run
+            mainVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/Scanner", "nextLine", "()Ljava/lang/String;", false); // Scan.nextLine()
+            mainVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "trim", "()Ljava/lang/String;", false); // Ignores surrounding spaces
+            mainVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "parseInt", "(Ljava/lang/String;)I", false); // Parses the int
             mainVisitor.visitVarInsn(Opcodes.ISTORE, var.getLocation()); // Store the int value in a variable
         }
         
@@ -545,8 +1485,8 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
         else if (var.getType().equals("STRING")){
             
             // Read String from the user
-            mainVisitor.visitVarInsn(Opcodes.ALOAD, scanLocation); // Loads scanner
-            mainVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/Scanner", "nextLine", "()Ljava/lang/String;", false); // Scan.nextLong()
+            mainVisitor.visitVarInsn(Opcodes.ALOAD, scanLocation); // Loads scanner created at the start of run
+            mainVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/Scanner", "nextLine", "()Ljava/lang/String;", false); // Scan.nextLine()
             mainVisitor.visitVarInsn(Opcodes.ASTORE, var.getLocation()); // Store the String value in a variable
         }
 
@@ -597,10 +1537,8 @@ public class MyBaseVisitor extends KnightCodeBaseVisitor<Object>{
                 break;
         }//end switch
 
-        //Loop that visits all of the stats within the while block
-        for(int i = 5; i<ctx.getChildCount(); i++){
-            visit(ctx.getChild(i));
-        }
+        //Visits all of the stats within the while block
+        visitStats(ctx.stat());
         
         //Jumps back to top if loop is set to execute
         mainVisitor.visitJumpInsn(Opcodes.GOTO, beginLabel);
@@ -0,0 +1,495 @@
+ /**
+* Class that symbolically runs the beginning of a KnightCode program at compile time. Statements are run one at a time for as long as every value they use is known, which is until the first READ, the first statement that can not be decided at compile time, or until the step or output budget runs out
+* The result is the output that was printed, the values of the variables at that point and the index of the statement where normal code generation has to resume
+* @author Matt Rice
+* @version 1.0
+* Assignment 5
+* CS322 - Compiler Construction
+* Spring 2024
+**/
+package compiler;
+
+import lexparse.*;
+import java.util.*;
+
+//ANTLR packages
+import org.antlr.v4.runtime.tree.*;
+
+
+public class PartialEvaluator {
+
+    public static final int DEFAULT_STEP_BUDGET = 100000; //default number of statements, loop tests and expression nodes that may be evaluated
+    public static final int DEFAULT_OUTPUT_BUDGET = 16384; //default number of characters of output that may be buffered
+    public static final int MAX_OUTPUT_BUDGET = 20000; //largest output budget, which keeps the buffered output inside of a single constant pool string
+
+    private Map<String, Variable> symbolTable; //symbol table of the program
+    private int stepBudget; //number of steps that may be evaluated
+    private int outputBudget; //number of characters of output that may be buffered
+    private int steps; //number of steps evaluated so far
+    private int outputSize; //number of characters of output buffered so far
+    private Map<String, Object> values = new HashMap<>(); //known value of each variable that has been set, either an Integer or a String
+    private List<String> output = new ArrayList<>(); //lines printed so far
+    private int resumeIndex; //index of the first statement that was not evaluated
+
+
+    /**
+     * Constructor for a PartialEvaluator
+     * @param symbolTable the symbol table of the program
+     * @param stepBudget the number of steps that may be evaluated, 0 turns the evaluator off
+     * @param outputBudget the number of characters of output that may be buffered
+     */
+    public PartialEvaluator(Map<String, Variable> symbolTable, int stepBudget, int outputBudget){
+        this.symbolTable = symbolTable == null ? new HashMap<>() : symbolTable;
+        this.stepBudget = Math.max(stepBudget, 0);
+        this.outputBudget = Math.min(Math.max(outputBudget, 0), MAX_OUTPUT_BUDGET);
+    }//end constructor
+
+    /**
+     * Returns the lines printed by the evaluated statements
+     * @return the lines of output
+     */
+    public List<String> getOutput(){
+        return output;
+    }//end getOutput
+
+    /**
+     * Returns the known values of the variables after the evaluated statements
+     * @return map from the name of a variable to its Integer or String value
+     */
+    public Map<String, Object> getValues(){
+        return values;
+    }//end getValues
+
+    /**
+     * Returns the index of the first statement that was not evaluated and has to be compiled normally
+     * @return the index of the statement to resume at
+     */
+    public int getResumeIndex(){
+        return resumeIndex;
+    }//end getResumeIndex
+
+    /**
+     * Method that evaluates the statements of the body in order until one of them can not be evaluated
+     * A statement is only kept if it was evaluated completely, except for a WHILE loop which keeps every iteration that was completed since the loop test is run again once the loop is compiled normally
+     * @param stats the statements of the body
+     */
+    public void run(List<KnightCodeParser.StatContext> stats){
+
+        for (resumeIndex = 0; resumeIndex < stats.size(); resumeIndex++){
+            KnightCodeParser.StatContext stat = stats.get(resumeIndex);
+
+            if (stat.loop() != null){
+                if (!runLoop(stat.loop())){
+                    return;
+                }
+            }
+            else {
+                Map<String, Object> savedValues = new HashMap<>(values);
+                int savedLines = output.size();
+                int savedSize = outputSize;
+
+                //Rolls back the statement if it could not be evaluated completely
+                if (!execStat(stat)){
+                    rollback(savedValues, savedLines, savedSize);
+                    return;
+                }
+            }
+        }
+
+    }//end run
+
+    /**
+     * Method that evaluates a WHILE loop of the body one iteration at a time, keeping each completed iteration
+     * @param ctx the parser tree context of the loop
+     * @return true if the loop finished, false if an iteration could not be evaluated
+     */
+    private boolean runLoop(KnightCodeParser.LoopContext ctx){
+
+        while (true){
+            Map<String, Object> savedValues = new HashMap<>(values);
+            int savedLines = output.size();
+            int savedSize = outputSize;
+
+            Boolean test = compare(ctx.getChild(1).getText(), ctx.comp().getText(), ctx.getChild(3).getText());
+            if (test == null){
+                return false;
+            }
+            if (!test){
+                return true;
+            }
+
+            //Rolls back the iteration if it could not be evaluated completely
+            for (KnightCodeParser.StatContext stat : ctx.stat()){
+                if (!execStat(stat)){
+                    rollback(savedValues, savedLines, savedSize);
+                    return false;
+                }
+            }
+        }
+
+    }//end runLoop
+
+    /**
+     * Method that restores the variables and output to an earlier point
+     * @param savedValues the values of the variables at that point
+     * @param savedLines the number of lines of output at that point
+     * @param savedSize the number of characters of output at that point
+     */
+    private void rollback(Map<String, Object> savedValues, int savedLines, int savedSize){
+        values = savedValues;
+        output.subList(savedLines, output.size()).clear();
+        outputSize = savedSize;
+    }//end rollback
+
+    /**
+     * Method that counts one step against the step budget
+     * @return true if the step is within the budget
+     */
+    private boolean step(){
+        return ++steps <= stepBudget;
+    }//end step
+
+    /**
+     * Method that evaluates a single statement
+     * @param ctx the parser tree context of the stat
+     * @return true if the statement was evaluated, false if it could not be
+     */
+    private boolean execStat(KnightCodeParser.StatContext ctx){
+
+        if (!step()){
+            return false;
+        }
+
+        if (ctx.setvar() != null){
+            return execSetvar(ctx.setvar());
+        }
+        else if (ctx.expr() != null){
+            return evalExpr(ctx.expr()) != null;
+        }
+        else if (ctx.print() != null){
+            return execPrint(ctx.print());
+        }
+        else if (ctx.decision() != null){
+            return execDecision(ctx.decision());
+        }
+        else if (ctx.loop() != null){
+            return execLoop(ctx.loop());
+        }
+        else if (ctx.inc() != null){
+            return execInc(ctx.inc());
+        }
+
+        //READ depends on the input so it always has to be compiled normally
+        return false;
+
+    }//end execStat
+
+    /**
+     * Method that evaluates a SET the same way visitSetvar compiles it
+     * @param ctx the parser tree context of the setvar
+     * @return true if the statement was evaluated
+     */
+    private boolean execSetvar(KnightCodeParser.SetvarContext ctx){
+
+        Variable var = symbolTable.get(ctx.ID().getText());
+
+        //Undeclared variables are reported by the code generator
+        if (var == null){
+            return false;
+        }
+
+        if (ctx.expr() != null){
+            //Only INTEGER variables are stored from an expression
+            if (!var.getType().equals("INTEGER")){
+                return false;
+            }
+
+            Integer value = evalExpr(ctx.expr());
+            if (value == null){
+                return false;
+            }
+            values.put(var.getName(), value);
+        }
+        //A string is only stored if the variable is a STRING
+        else if (var.getType().equals("STRING") && ctx.STRING() != null){
+            String str = ctx.STRING().getText();
+            values.put(var.getName(), str.substring(1, str.length() - 1));
+        }
+
+        return true;
+    }//end execSetvar
+
+    /**
+     * Method that evaluates an INC the same way visitInc compiles it
+     * @param ctx the parser tree context of the inc
+     * @return true if the statement was evaluated
+     */
+    private boolean execInc(KnightCodeParser.IncContext ctx){
+
+        Variable var = symbolTable.get(ctx.ID().getText());
+
+        if (var == null || !var.getType().equals("INTEGER") || !values.containsKey(var.getName())){
+            return false;
+        }
+
+        Integer value = evalExpr(ctx.expr());
+        if (value == null){
+            return false;
+        }
+        values.put(var.getName(), (Integer)values.get(var.getName()) + value);
+
+        return true;
+    }//end execInc
+
+    /**
+     * Method that buffers the line that a PRINT would print
+     * @param ctx the parser tree context of the print
+     * @return true if the statement was evaluated and its output fits in the output budget
+     */
+    private boolean execPrint(KnightCodeParser.PrintContext ctx){
+
+        String line;
+
+        if (ctx.ID() != null){
+            Variable var = symbolTable.get(ctx.ID().getText());
+            if (var == null || !values.containsKey(var.getName())){
+                return false;
+            }
+            line = String.valueOf(values.get(var.getName()));
+        }
+        else {
+            String str = ctx.STRING().getText();
+            line = str.substring(1, str.length() - 1);
+        }
+
+        //Counts the line and its line separator against the output budget
+        if (outputSize + line.length() + 1 > outputBudget){
+            return false;
+        }
+        outputSize += line.length() + 1;
+        output.add(line);
+
+        return true;
+    }//end execPrint
+
+    /**
+     * Method that evaluates an IF THEN ELSE by evaluating the branch that would be taken
+     * @param ctx the parser tree context of the decision
+     * @return true if the statement was evaluated
+     */
+    private boolean execDecision(KnightCodeParser.DecisionContext ctx){
+
+        Boolean test = compare(ctx.getChild(1).getText(), ctx.comp().getText(), ctx.getChild(3).getText());
+        if (test == null){
+            return false;
+        }
+
+        for (KnightCodeParser.StatContext stat : MyBaseVisitor.decisionBlock(ctx, !test)){
+            if (!execStat(stat)){
+                return false;
+            }
+        }
+
+        return true;
+    }//end execDecision
+
+    /**
+     * Method that evaluates a WHILE loop nested inside of another statement
+     * @param ctx the parser tree context of the loop
+     * @return true if the loop was evaluated until it finished
+     */
+    private boolean execLoop(KnightCodeParser.LoopContext ctx){
+
+        while (true){
+            Boolean test = compare(ctx.getChild(1).getText(), ctx.comp().getText(), ctx.getChild(3).getText());
+            if (test == null){
+                return false;
+            }
+            if (!test){
+                return true;
+            }
+
+            for (KnightCodeParser.StatContext stat : ctx.stat()){
+                if (!execStat(stat)){
+                    return false;
+                }
+            }
+        }
+
+    }//end execLoop
+
+    /**
+     * Method that evaluates the comparison of an IF or WHILE, whose operands are loaded the same way as loadInteger
+     * @param left the text of the left operand
+     * @param op the comparison operator
+     * @param right the text of the right operand
+     * @return the result of the comparison, or null if it is not known
+     */
+    private Boolean compare(String left, String op, String right){
+
+        if (!step()){
+            return null;
+        }
+
+        Integer a = operand(left);
+        Integer b = operand(right);
+        if (a == null || b == null){
+            return null;
+        }
+
+        return compare(a, op, b);
+    }//end compare
+
+    /**
+     * Method that compares two ints
+     * @param a the left int
+     * @param op the comparison operator
+     * @param b the right int
+     * @return the result of the comparison, or null if the operator is not known
+     */
+    private Boolean compare(int a, String op, int b){
+        switch (op) {
+            case ">":
+                return a > b;
+            case "<":
+                return a < b;
+            case "=":
+                return a == b;
+            case "<>":
+                return a != b;
+        }
+        return null;
+    }//end compare
+
+    /**
+     * Method that returns the value of a number or of a known INTEGER variable
+     * @param operand the ID or number
+     * @return the value, or null if it is not known
+     */
+    private Integer operand(String operand){
+
+        Variable var = symbolTable.get(operand);
+
+        if (var != null){
+            return var.getType().equals("INTEGER") ? (Integer)values.get(operand) : null;
+        }
+
+        try {
+            return Integer.parseInt(operand);
+        }
+        catch (NumberFormatException e){
+            return null;
+        }
+    }//end operand
+
+    /**
+     * Method that evaluates an expression with int arithmetic. Like evalExpr in MyBaseVisitor, the tree is walked with an explicit work stack so that very long expressions can not overflow the stack
+     * @param ctx the context of the expr that is to be evaluated
+     * @return the value of the expression, or null if it is not known or would throw when run
+     */
+    public Integer evalExpr(KnightCodeParser.ExprContext ctx){
+
+        //Nodes still to be evaluated, along with whether their operands have already been evaluated
+        Deque<KnightCodeParser.ExprContext> work = new ArrayDeque<>();
+        Deque<Boolean> ready = new ArrayDeque<>();
+        Deque<Integer> operands = new ArrayDeque<>(); //values that have been evaluated
+
+        work.push(ctx);
+        ready.push(false);
+
+        while (!work.isEmpty()){
+            KnightCodeParser.ExprContext expr = work.pop();
+            boolean operandsReady = ready.pop();
+
+            if (!step()){
+                return null;
+            }
+
+            if (expr instanceof KnightCodeParser.ParenthesisContext){
+                work.push(((KnightCodeParser.ParenthesisContext)expr).expr());
+                ready.push(false);
+            }
+            else if (expr instanceof KnightCodeParser.NumberContext){
+                operands.push(Integer.parseInt(expr.getText()));
+            }
+            else if (expr instanceof KnightCodeParser.IdContext){
+                Variable var = symbolTable.get(expr.getText());
+                if (var == null || !var.getType().equals("INTEGER") || !values.containsKey(var.getName())){
+                    return null;
+                }
+                operands.push((Integer)values.get(var.getName()));
+            }
+            //Every other expr has two operands which are evaluated first
+            else if (!operandsReady){
+                work.push(expr);
+                ready.push(true);
+                work.push(expr.getRuleContext(KnightCodeParser.ExprContext.class, 1));
+                ready.push(false);
+                work.push(expr.getRuleContext(KnightCodeParser.ExprContext.class, 0));
+                ready.push(false);
+            }
+            else {
+                int b = operands.pop();
+                int a = operands.pop();
+
+                if (expr instanceof KnightCodeParser.AdditionContext){
+                    operands.push(a + b);
+                }
+                else if (expr instanceof KnightCodeParser.SubtractionContext){
+                    operands.push(a - b);
+                }
+                else if (expr instanceof KnightCodeParser.MultiplicationContext){
+                    operands.push(a * b);
+                }
+                else if (expr instanceof KnightCodeParser.DivisionContext){
+                    //Dividing by zero throws when run, so it is left to the compiled code
+                    if (b == 0){
+                        return null;
+                    }
+                    operands.push(a / b);
+                }
+                else if (expr instanceof KnightCodeParser.ComparisonContext){
+                    Boolean result = compare(a, ((KnightCodeParser.ComparisonContext)expr).comp().getText(), b);
+                    if (result == null){
+                        return null;
+                    }
+                    operands.push(result ? 1 : 0);
+                }
+            }
+        }
+
+        return operands.pop();
+
+    }//end evalExpr
+
+    /**
+     * Method that finds the variables that are used by the statements that were not evaluated, which are the only variables whose values have to be stored
+     * @param stats the statements of the body
+     * @return the names of the variables used from the resume index on
+     */
+    public Set<String> usedVariables(List<KnightCodeParser.StatContext> stats){
+
+        Set<String> used = new HashSet<>();
+
+        //Walks the remaining statements with an explicit stack since expressions can be very deep
+        Deque<ParseTree> pending = new ArrayDeque<>(stats.subList(resumeIndex, stats.size()));
+
+        while (!pending.isEmpty()){
+            ParseTree node = pending.pop();
+
+            if (node instanceof TerminalNode){
+                if (((TerminalNode)node).getSymbol().getType() == KnightCodeParser.ID){
+                    used.add(node.getText());
+                }
+            }
+            else {
+                for (int i = 0; i < node.getChildCount(); i++){
+                    pending.push(node.getChild(i));
+                }
+            }
+        }
+
+        return used;
+    }//end usedVariables
+
+}//end PartialEvaluator
@@ -10,6 +10,8 @@ package compiler;
 
 import lexparse.*;//lexparse directory
 import java.io.IOException;
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.MethodTooLargeException;
 
 //ANTLR packages
 import org.antlr.v4.runtime.*;
@@ -30,7 +32,19 @@ public class kcc {
       
         // Handles if args are not entered properly
         if (args.length < 2) {
-            System.err.println("Run as: java compiler/kcc <pathToIp/input.kcc> <pathToOp/output>\nReplace pathToIp with the directory of the input file and pathToOp with the desired output location");
+            System.err.println("Run as: java compiler/kcc <pathToIp/input.kcc> <pathToOp/output> [stepBudget] [outputBudget]\nReplace pathToIp with the directory of the input file and pathToOp with the desired output location\nstepBudget and outputBudget limit how much of the program is evaluated at compile time, a stepBudget of 0 turns it off");
+            return;
+        }
+
+        //Optional budgets for evaluating the program at compile time
+        int stepBudget = PartialEvaluator.DEFAULT_STEP_BUDGET;
+        int outputBudget = PartialEvaluator.DEFAULT_OUTPUT_BUDGET;
+        try{
+            if (args.length > 2) stepBudget = Integer.parseInt(args[2]);
+            if (args.length > 3) outputBudget = Integer.parseInt(args[3]);
+        }
+        catch(NumberFormatException e){
+            System.err.println("The step budget and output budget must be integers.");
             return;
         }
       
@@ -44,7 +58,7 @@ public class kcc {
 
             ParseTree tree = parser.file();  //set the start location of the parser
              
-            MyBaseVisitor visitor = new MyBaseVisitor(output);//MyBaseVisitor object with the program name of the output which will be used to visit the tree
+            MyBaseVisitor visitor = new MyBaseVisitor(output, stepBudget, outputBudget);//MyBaseVisitor object with the program name of the output which will be used to visit the tree
             
             //Visits the tree
             visitor.visit(tree);
@@ -55,6 +69,13 @@ public class kcc {
         catch(IOException e){
             System.out.println("Please make sure that the path to the files are correct and run again.");
         }
+        //The JVM allows at most 65535 bytes of bytecode in a method and 65535 constants in a class
+        catch(MethodTooLargeException e){
+            System.err.println("Compile error: method " + e.getMethodName() + " needs " + e.getCodeSize() + " bytes of bytecode but the JVM allows at most 65535 bytes in a method. Split the program into smaller statements.");
+        }
+        catch(ClassTooLargeException e){
+            System.err.println("Compile error: the program needs " + e.getConstantPoolCount() + " constants but the JVM allows at most 65535 in a class.");
+        }
     
     }//end main
 }//end kcc
@@ -0,0 +1,562 @@
+ /**
+* Class that checks the code generator for regressions without timing anything. It compiles a fixed corpus of KnightCode programs (the .kc programs in the tests directory plus synthetic stress programs) through MyBaseVisitor, verifies every method with ASM's Analyzer and measures the bytecode of each class
+* The measurements are compared with the checked in baseline and any measurement that got bigger is reported as a regression. Run with --update to write the current measurements as the new baseline
+* @author Matt Rice
+* @version 1.0
+* Assignment 5
+* CS322 - Compiler Construction
+* Spring 2024
+**/
+package regression;
+
+import compiler.*;
+import lexparse.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+//ANTLR packages
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+//ASM packages
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.BasicVerifier;
+
+
+public class BytecodeRegression {
+
+    private static final String TESTS_DIRECTORY = "tests"; //directory of the .kc programs in the corpus
+    private static final String BASELINE_FILE = "regression/baseline.txt"; //checked in measurements
+
+
+    public static void main(String[] args){
+
+        boolean update = args.length > 0 && args[0].equals("--update");
+
+        try{
+            //Measures every program in the corpus
+            Map<String, Long> current = new LinkedHashMap<>();
+            for (Map.Entry<String, String> program : corpus().entrySet()){
+                measure(program.getKey(), compile(program.getKey(), program.getValue()), current);
+            }
+
+            if (update){
+                writeBaseline(current);
+                System.out.println("Wrote " + current.size() + " measurements to " + BASELINE_FILE);
+                return;
+            }
+
+            if (!compare(readBaseline(), current)){
+                System.exit(1);
+            }
+        }
+        catch(IOException | AnalyzerException | IllegalStateException e){
+            System.err.println("Bytecode regression check failed: " + e.getMessage());
+            System.exit(1);
+        }
+
+    }//end main
+
+    /**
+     * Method that builds the corpus: the .kc programs in the tests directory in order of their file name, followed by the synthetic stress programs
+     * @return map from the name of each program to its source
+     * @throws IOException if the tests directory can not be read
+     */
+    public static Map<String, String> corpus() throws IOException{
+
+        Map<String, String> programs = new LinkedHashMap<>();
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(TESTS_DIRECTORY), "*.kc")){
+            for (Path file : dir){
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+
+        for (Path file : files){
+            String name = file.getFileName().toString();
+            programs.put(name.substring(0, name.length() - 3), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+
+        programs.putAll(stressPrograms());
+        return programs;
+    }//end corpus
+
+    /**
+     * Method that generates the synthetic stress programs. Each one starts with a READ so that the code generator, not the PartialEvaluator, handles the interesting part, except StressFolded which is meant to be evaluated at compile time
+     * @return map from the name of each program to its source
+     */
+    public static Map<String, String> stressPrograms(){
+
+        Map<String, String> programs = new LinkedHashMap<>();
+
+        //Long left leaning chain of every arithmetic operator
+        StringBuilder chain = new StringBuilder("PROGRAM StressChain\nDECLARE\n\tINTEGER x\n\tINTEGER y\nBEGIN\n\tREAD x\n\tSET y := x");
+        String[] ops = {" + ", " - ", " * ", " / "};
+        for (int i = 0; i < 2000; i++){
+            chain.append(ops[i % ops.length]).append(i % ops.length == 3 ? "3" : "x");
+        }
+        chain.append("\n\tPRINT y\nEND\n");
+        programs.put("StressChain", chain.toString());
+
+        //Deeply nested right leaning expression
+        StringBuilder nested = new StringBuilder("PROGRAM StressNested\nDECLARE\n\tINTEGER x\n\tINTEGER y\nBEGIN\n\tREAD x\n\tSET y := ");
+        for (int i = 0; i < 200; i++){
+            nested.append("x").append(i % 2 == 0 ? " + (" : " * (");
+        }
+        nested.append("x");
+        for (int i = 0; i < 200; i++){
+            nested.append(")");
+        }
+        nested.append("\n\tPRINT y\nEND\n");
+        programs.put("StressNested", nested.toString());
+
+        //Deeply nested expression whose deep side is always subtracted
+        StringBuilder subtracted = new StringBuilder("PROGRAM StressSubtracted\nDECLARE\n\tINTEGER x\n\tINTEGER y\nBEGIN\n\tREAD x\n\tSET y := ");
+        for (int i = 0; i < 200; i++){
+            subtracted.append("x").append(i % 2 == 0 ? " - (" : " * (");
+        }
+        subtracted.append("x");
+        for (int i = 0; i < 200; i++){
+            subtracted.append(")");
+        }
+        subtracted.append("\n\tPRINT y\nEND\n");
+        programs.put("StressSubtracted", subtracted.toString());
+
+        //Right nested divisions next to a long chain, where the division has to be evaluated first
+        StringBuilder divided = new StringBuilder("PROGRAM StressDivided\nDECLARE\n\tINTEGER x\n\tINTEGER y\nBEGIN\n\tREAD x\n\tSET y := (x");
+        for (int i = 0; i < 50; i++){
+            divided.append(" + x");
+        }
+        divided.append(") * (x / (x / (x / (x / (x / (x / x)))))) + 1\n\tPRINT y\nEND\n");
+        programs.put("StressDivided", divided.toString());
+
+        //Chain too large for one method, which is split into helper methods
+        StringBuilder outlined = new StringBuilder("PROGRAM StressOutlined\nDECLARE\n\tINTEGER x\n\tINTEGER y\nBEGIN\n\tREAD x\n\tREAD y\n\tSET y := x");
+        for (int i = 0; i < 60000; i++){
+            outlined.append(ops[i % 3]).append(i % 2 == 0 ? "y" : "x");
+        }
+        outlined.append("\n\tPRINT y\nEND\n");
+        programs.put("StressOutlined", outlined.toString());
+
+        //Chain too large for one method over more variables than a method can take as parameters
+        StringBuilder wide = new StringBuilder("PROGRAM StressOutlinedWide\nDECLARE\n\tINTEGER x\n\tINTEGER y\n");
+        for (int i = 0; i < 400; i++){
+            wide.append("\tINTEGER v").append(i).append("\n");
+        }
+        wide.append("BEGIN\n\tREAD x\n");
+        for (int i = 0; i < 400; i++){
+            wide.append("\tSET v").append(i).append(" := x + ").append(i).append("\n");
+        }
+        wide.append("\tSET y := x");
+        for (int i = 0; i < 60000; i++){
+            wide.append(" + v").append(i % 400);
+        }
+        wide.append("\n\tPRINT y\nEND\n");
+        programs.put("StressOutlinedWide", wide.toString());
+
+        //Interpreter style dispatch loop with dense and sparse IF chains
+        StringBuilder dispatch = new StringBuilder("PROGRAM StressDispatch\nDECLARE\n\tINTEGER op\n\tINTEGER acc\n\tINTEGER n\nBEGIN\n\tREAD n\n\tSET acc := 0\n\tSET op := 0\n\tWHILE op < n DO\n");
+        for (int i = 0; i < 16; i++){
+            dispatch.append("\t\tIF op = ").append(i).append(" THEN INC acc := ").append(i + 1).append(" ENDIF\n");
+        }
+        for (int i = 0; i < 8; i++){
+            dispatch.append("\t\tIF acc = ").append(i * 1000).append(" THEN PRINT acc ENDIF\n");
+        }
+        dispatch.append("\t\tSET op := op + 1\n\tENDWHILE\n\tPRINT acc\nEND\n");
+        programs.put("StressDispatch", dispatch.toString());
+
+        //Nested loops with an IF THEN ELSE inside
+        programs.put("StressLoops", "PROGRAM StressLoops\nDECLARE\n\tINTEGER i\n\tINTEGER j\n\tINTEGER n\n\tINTEGER s\nBEGIN\n\tREAD n\n\tSET s := 0\n\tSET i := 0\n"
+            + "\tWHILE i < n DO\n\t\tSET j := 0\n\t\tWHILE j < n DO\n\t\t\tIF i > j THEN INC s := i - j\n\t\t\tELSE INC s := j * 2\n\t\t\tENDIF\n\t\t\tSET j := j + 1\n\t\tENDWHILE\n\t\tSET i := i + 1\n\tENDWHILE\n\tPRINT s\nEND\n");
+
+        //Input free program that the PartialEvaluator should fold into its output
+        programs.put("StressFolded", "PROGRAM StressFolded\nDECLARE\n\tINTEGER i\n\tINTEGER s\nBEGIN\n\tSET i := 0\n\tSET s := 0\n"
+            + "\tWHILE i < 100 DO\n\t\tINC s := i * i\n\t\tIF s > 1000 THEN SET s := s - 1000 ENDIF\n\t\tSET i := i + 1\n\tENDWHILE\n\tPRINT s\nEND\n");
+
+        return programs;
+    }//end stressPrograms
+
+    /**
+     * Method that compiles a KnightCode program with MyBaseVisitor without writing any files
+     * @param name the name of the program, which is used as the name of the class
+     * @param source the source of the program
+     * @return the bytes of the class file
+     */
+    public static byte[] compile(String name, String source){
+
+        KnightCodeLexer lexer = new KnightCodeLexer(CharStreams.fromString(source, name)); //create the lexer
+        KnightCodeParser parser = new KnightCodeParser(new CommonTokenStream(lexer)); //create the parser
+        KnightCodeParser.FileContext tree = parser.file();
+
+        if (parser.getNumberOfSyntaxErrors() > 0){
+            throw new IllegalStateException(name + " has syntax errors");
+        }
+
+        MyBaseVisitor visitor = new MyBaseVisitor(name);
+        visitor.visit(tree);
+        return visitor.finishClass();
+    }//end compile
+
+    /**
+     * Method that verifies a class and adds its measurements, whose names start with the name of the program and then the method
+     * @param name the name of the program
+     * @param bytes the bytes of the class file
+     * @param metrics the map the measurements are added to
+     * @throws AnalyzerException if a method does not verify
+     */
+    public static void measure(String name, byte[] bytes, Map<String, Long> metrics) throws AnalyzerException{
+
+        ClassReader reader = new ClassReader(bytes);
+        ClassNode node = new ClassNode();
+        reader.accept(node, 0);
+
+        metrics.put(name + ".constant_pool", (long)reader.getItemCount());
+
+        Map<String, Integer> codeLengths = codeLengths(reader);
+
+        for (MethodNode method : node.methods){
+            String prefix = name + "." + method.name;
+
+            //Records the control flow edges while verifying the method
+            List<Set<Integer>> successors = new ArrayList<>();
+            for (int i = 0; i < method.instructions.size(); i++){
+                successors.add(new TreeSet<>());
+            }
+            Analyzer<BasicValue> analyzer = new Analyzer<BasicValue>(new BasicVerifier()){
+                @Override
+                protected void newControlFlowEdge(int insnIndex, int successorIndex){
+                    successors.get(insnIndex).add(successorIndex);
+                }
+            };
+            analyzer.analyze(node.name, method);
+
+            metrics.put(prefix + ".instructions", (long)countInstructions(method, 0, method.instructions.size() - 1));
+            metrics.put(prefix + ".bytes", (long)codeLengths.get(method.name + method.desc));
+            metrics.put(prefix + ".max_stack", (long)method.maxStack);
+            metrics.put(prefix + ".max_locals", (long)method.maxLocals);
+
+            //Estimates the instructions per iteration of each loop, named by its nesting path so that adding a loop only renames the loops after it at the same level
+            List<Loop> loops = findLoops(successors);
+            for (Loop loop : loops){
+                iterationCost(method, successors, loop);
+            }
+            loops.sort(Comparator.comparingInt((Loop loop) -> loop.header));
+            for (Loop loop : loops){
+                metrics.put(prefix + "." + loop.path + ".instructions", Math.round(loop.cost));
+            }
+        }
+
+    }//end measure
+
+    /**
+     * Method that counts the real instructions of a method between two indexes, leaving out labels, line numbers and frames
+     * @param method the method
+     * @param from the index of the first instruction
+     * @param to the index of the last instruction
+     * @return the number of instructions
+     */
+    private static int countInstructions(MethodNode method, int from, int to){
+        int count = 0;
+        for (int i = from; i <= to; i++){
+            AbstractInsnNode insn = method.instructions.get(i);
+            if (insn.getOpcode() >= 0){
+                count++;
+            }
+        }
+        return count;
+    }//end countInstructions
+
+    /**
+     * Class that holds a loop of a method: the instruction its backwards jumps go to and every instruction that can reach one of those jumps without passing through it
+     */
+    private static class Loop {
+
+        int header; //index of the first instruction of the loop
+        Set<Integer> body = new TreeSet<>(); //indexes of the instructions in the loop, including the loops inside of it
+        List<Loop> inner = new ArrayList<>(); //loops directly inside of this loop in order
+        String path; //name of the loop such as loop0 or loop1.0 for the first loop inside of the second loop
+        double cost = -1; //estimated instructions per iteration, -1 until it is found
+
+        /**
+         * Constructor for a Loop
+         * @param header the index of the first instruction of the loop
+         */
+        Loop(int header){
+            this.header = header;
+        }//end constructor
+
+    }//end Loop
+
+    /**
+     * Method that finds the loops of a method from its control flow edges, where every edge that goes backwards closes a loop, and names each of them by its nesting path
+     * @param successors the indexes each instruction can go to next
+     * @return the loops with the innermost ones first
+     */
+    private static List<Loop> findLoops(List<Set<Integer>> successors){
+
+        //Finds what can come before every instruction
+        List<Set<Integer>> predecessors = new ArrayList<>();
+        for (int i = 0; i < successors.size(); i++){
+            predecessors.add(new TreeSet<>());
+        }
+        for (int i = 0; i < successors.size(); i++){
+            for (int next : successors.get(i)){
+                predecessors.get(next).add(i);
+            }
+        }
+
+        //Every backwards edge adds the instructions that reach it without passing the header to the loop of its header
+        Map<Integer, Loop> byHeader = new TreeMap<>();
+        for (int i = 0; i < successors.size(); i++){
+            for (int next : successors.get(i)){
+                if (next > i){
+                    continue;
+                }
+                Loop loop = byHeader.computeIfAbsent(next, Loop::new);
+                loop.body.add(next);
+                Deque<Integer> pending = new ArrayDeque<>();
+                pending.push(i);
+                while (!pending.isEmpty()){
+                    int insn = pending.pop();
+                    if (loop.body.add(insn)){
+                        pending.addAll(predecessors.get(insn));
+                    }
+                }
+            }
+        }
+
+        //Each loop is inside of the smallest other loop that holds its header
+        List<Loop> loops = new ArrayList<>(byHeader.values());
+        loops.sort(Comparator.comparingInt((Loop loop) -> loop.body.size()));
+        List<Loop> outermost = new ArrayList<>();
+        for (int i = 0; i < loops.size(); i++){
+            Loop parent = null;
+            for (int j = i + 1; j < loops.size() && parent == null; j++){
+                if (loops.get(j).body.contains(loops.get(i).header)){
+                    parent = loops.get(j);
+                }
+            }
+            (parent == null ? outermost : parent.inner).add(loops.get(i));
+        }
+
+        //Names the loops from the outside in, in order of where they start
+        Deque<Loop> naming = new ArrayDeque<>();
+        outermost.sort(Comparator.comparingInt((Loop loop) -> loop.header));
+        for (int i = 0; i < outermost.size(); i++){
+            outermost.get(i).path = "loop" + i;
+            naming.push(outermost.get(i));
+        }
+        while (!naming.isEmpty()){
+            Loop loop = naming.pop();
+            loop.inner.sort(Comparator.comparingInt((Loop inner) -> inner.header));
+            for (int i = 0; i < loop.inner.size(); i++){
+                loop.inner.get(i).path = loop.path + "." + i;
+                naming.push(loop.inner.get(i));
+            }
+        }
+
+        return loops;
+    }//end findLoops
+
+    /**
+     * Method that estimates the instructions run by one iteration of a loop, following one path from its header back to its header
+     * Where the path splits, each way that stays in the loop is taken as equally likely so the arms of an IF or a switch are averaged, and a loop inside of it counts as one of its own iterations
+     * @param method the method
+     * @param successors the indexes each instruction can go to next
+     * @param loop the loop, whose inner loops must already have their cost
+     * @return the estimated instructions per iteration
+     */
+    private static double iterationCost(MethodNode method, List<Set<Integer>> successors, Loop loop){
+
+        //Inner loops are entered at their header and left by any edge out of their body
+        Map<Integer, Loop> innerHeaders = new HashMap<>();
+        Set<Integer> insideInner = new HashSet<>();
+        for (Loop inner : loop.inner){
+            innerHeaders.put(inner.header, inner);
+            insideInner.addAll(inner.body);
+        }
+
+        //Every edge that stays in the loop goes forwards apart from the ones back to the header, so the cost from each instruction to the end of the iteration can be found from the last instruction up
+        Map<Integer, Double> remaining = new HashMap<>();
+        List<Integer> body = new ArrayList<>(loop.body);
+        for (int i = body.size() - 1; i >= 0; i--){
+            int insn = body.get(i);
+            double cost;
+            Set<Integer> next = new TreeSet<>();
+
+            if (innerHeaders.containsKey(insn)){
+                Loop inner = innerHeaders.get(insn);
+                cost = inner.cost;
+                for (int member : inner.body){
+                    for (int target : successors.get(member)){
+                        if (!inner.body.contains(target)){
+                            next.add(target);
+                        }
+                    }
+                }
+            }
+            else if (insideInner.contains(insn)){
+                continue;
+            }
+            else {
+                cost = method.instructions.get(insn).getOpcode() >= 0 ? 1 : 0;
+                next.addAll(successors.get(insn));
+            }
+
+            //Averages the ways that stay in the loop, where going back to the header ends the iteration
+            double total = 0;
+            int ways = 0;
+            for (int target : next){
+                if (target == loop.header){
+                    ways++;
+                }
+                else if (loop.body.contains(target)){
+                    total += remaining.getOrDefault(target, 0.0);
+                    ways++;
+                }
+            }
+            remaining.put(insn, cost + (ways == 0 ? 0 : total / ways));
+        }
+
+        loop.cost = remaining.get(loop.header);
+        return loop.cost;
+    }//end iterationCost
+
+    /**
+     * Method that reads code_length from the Code attribute of each method, straight from the class file since ASM's tree API does not keep the length of the bytecode
+     * @param reader the ClassReader of the class
+     * @return map from the name and descriptor of each method to its code_length
+     */
+    private static Map<String, Integer> codeLengths(ClassReader reader){
+
+        Map<String, Integer> code = new HashMap<>();
+        char[] buffer = new char[reader.getMaxStringLength()];
+
+        //Skips access_flags, this_class, super_class and the interfaces
+        int offset = reader.header + 6;
+        offset += 2 + 2 * reader.readUnsignedShort(offset);
+
+        //Skips the fields
+        int fieldCount = reader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < fieldCount; i++){
+            int attributeCount = reader.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributeCount; j++){
+                offset += 6 + reader.readInt(offset + 2);
+            }
+        }
+
+        //Reads the Code attribute of each method, where code_length follows max_stack and max_locals
+        int methodCount = reader.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methodCount; i++){
+            String method = reader.readUTF8(offset + 2, buffer) + reader.readUTF8(offset + 4, buffer);
+            int attributeCount = reader.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributeCount; j++){
+                if (reader.readUTF8(offset, buffer).equals("Code")){
+                    code.put(method, reader.readInt(offset + 10));
+                }
+                offset += 6 + reader.readInt(offset + 2);
+            }
+        }
+
+        return code;
+    }//end codeLengths
+
+    /**
+     * Method that compares the current measurements with the baseline and prints every difference
+     * @param baseline the measurements in the baseline
+     * @param current the current measurements
+     * @return true if nothing got bigger and both have the same measurements
+     */
+    public static boolean compare(Map<String, Long> baseline, Map<String, Long> current){
+
+        boolean passed = true;
+        int improved = 0;
+
+        for (Map.Entry<String, Long> entry : current.entrySet()){
+            Long expected = baseline.get(entry.getKey());
+
+            if (expected == null){
+                System.out.println("NEW         " + entry.getKey() + ": " + entry.getValue());
+                passed = false;
+            }
+            else if (entry.getValue() > expected){
+                System.out.println("REGRESSION  " + entry.getKey() + ": " + expected + " -> " + entry.getValue());
+                passed = false;
+            }
+            else if (entry.getValue() < expected){
+                System.out.println("IMPROVEMENT " + entry.getKey() + ": " + expected + " -> " + entry.getValue());
+                improved++;
+            }
+        }
+
+        for (String key : baseline.keySet()){
+            if (!current.containsKey(key)){
+                System.out.println("MISSING     " + key);
+                passed = false;
+            }
+        }
+
+        if (!passed){
+            System.out.println("Bytecode regression check FAILED, if the change is intended run with --update and commit " + BASELINE_FILE);
+        }
+        else if (improved > 0){
+            System.out.println("Bytecode regression check passed with " + improved + " improvements, run with --update to lock them in");
+        }
+        else {
+            System.out.println("Bytecode regression check passed: " + current.size() + " measurements match the baseline");
+        }
+
+        return passed;
+    }//end compare
+
+    /**
+     * Method that reads the baseline, which has one "name value" pair per line
+     * @return the measurements in the baseline
+     * @throws IOException if the baseline can not be read
+     */
+    public static Map<String, Long> readBaseline() throws IOException{
+
+        Map<String, Long> baseline = new LinkedHashMap<>();
+
+        for (String line : Files.readAllLines(Paths.get(BASELINE_FILE), StandardCharsets.UTF_8)){
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            baseline.put(parts[0], Long.parseLong(parts[1]));
+        }
+
+        return baseline;
+    }//end readBaseline
+
+    /**
+     * Method that writes the measurements as the new baseline
+     * @param metrics the measurements
+     * @throws IOException if the baseline can not be written
+     */
+    public static void writeBaseline(Map<String, Long> metrics) throws IOException{
+
+        StringBuilder out = new StringBuilder("# Bytecode measurements checked by regression.BytecodeRegression, regenerate with: ant regression-baseline\n");
+        for (Map.Entry<String, Long> entry : metrics.entrySet()){
+            out.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+
+        Files.write(Paths.get(BASELINE_FILE), out.toString().getBytes(StandardCharsets.UTF_8));
+    }//end writeBaseline
+
+}//end BytecodeRegression